@@ -14,6 +14,9 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.sql.ResultSet;
@@ -25,6 +28,11 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.HashSet;
 import java.lang.Math;
 
 /**
@@ -217,6 +225,57 @@ public class Amazon {
 	return -1;
    }
 
+   /**
+    * Method to create a precompiled SQL statement on the physical
+    * connection, used when the same statement is executed many times
+    * in a batch.
+    *
+    * @param sql the input SQL string with '?' parameter placeholders
+    * @return the prepared statement, to be closed by the caller
+    * @throws java.sql.SQLException when failed to prepare the statement
+    */
+   public PreparedStatement prepareStatement (String sql) throws SQLException {
+      return this._connection.prepareStatement (sql);
+   }//end prepareStatement
+
+   /**
+    * Method to start a transaction.  Statements issued after this call are
+    * not visible to other sessions until commitTransaction is called.
+    *
+    * @throws java.sql.SQLException when failed to disable auto-commit
+    */
+   public void beginTransaction () throws SQLException {
+      this._connection.setAutoCommit (false);
+   }//end beginTransaction
+
+   /**
+    * Method to commit the current transaction and return to auto-commit mode.
+    *
+    * @throws java.sql.SQLException when the commit failed
+    */
+   public void commitTransaction () throws SQLException {
+      this._connection.commit ();
+      this._connection.setAutoCommit (true);
+   }//end commitTransaction
+
+   /**
+    * Method to roll back the current transaction and return to auto-commit mode.
+    */
+   public void rollbackTransaction () {
+      try{
+         this._connection.rollback ();
+      }catch (SQLException e){
+         System.err.println("Rollback failed: " + e.getMessage());
+      }finally{
+         // always hand the connection back in auto-commit mode
+         try{
+            this._connection.setAutoCommit (true);
+         }catch (SQLException e){
+            System.err.println("Unable to restore auto-commit: " + e.getMessage());
+         }//end try
+      }//end try
+   }//end rollbackTransaction
+
    /**
     * Method to close the physical connection if it is open.
     */
@@ -284,7 +343,7 @@ public class Amazon {
                 System.out.println("4. View 5 recent orders");
 
                 //the following functionalities basically used by managers
-                System.out.println("5. Update Product");
+                System.out.println("5. Update Products");
                 System.out.println("6. View 5 recent Product Updates Info");
                 System.out.println("7. View 5 Popular Items");
                 System.out.println("8. View 5 Popular Customers");
@@ -478,7 +537,7 @@ public class Amazon {
          List<List<String> > quantityList = esql.executeQueryAndReturnResult(getQuantity);
          String quantityString = quantityList.get(0).get(0);
          int quantity = Integer.parseInt(quantityString) - numBought;
-         String updateQuery = String.format("UPDATE product SET numberofunits = %s WHERE storeid = %s AND productname = '%s';", quantity, storeID, prodName);
+         String updateQuery = String.format("UPDATE product SET numberofunits = %s, version = version + 1 WHERE storeid = %s AND productname = '%s';", quantity, storeID, prodName);
          //System.out.println(updateQuery);
          esql.executeUpdate(updateQuery);
          //7up 12
@@ -514,6 +573,23 @@ public class Amazon {
          System.err.println (e.getMessage ());
       }
    }
+   // width of the productName char column
+   static final int MAX_PRODUCT_NAME_LENGTH = 30;
+
+   /*
+    * Pending changes to one product of a store, together with the row as it
+    * was when the manager picked it; null change fields are left unchanged
+    **/
+   static class ProductEdit {
+      String productName;
+      int version;
+      int currentUnits;
+      double currentPrice;
+      String newName = null;
+      Integer numberOfUnits = null;
+      Double pricePerUnit = null;
+   }
+
    public static void updateProduct(Amazon esql, String authorized) {
       try{
          String query = String.format("SELECT userid FROM USERS WHERE name = '%s';", authorized);
@@ -523,43 +599,243 @@ public class Amazon {
             userID = res.get(i).get(0);
          }
          System.out.print("\tEnter store ID: ");
-         String storeID = in.readLine();
+         int storeID = Integer.parseInt(in.readLine().trim());
          String storeQuery = String.format("SELECT managerid FROM STORE WHERE storeid = %s AND managerid = %s", storeID, userID);
          int storeNum = esql.executeQuery(storeQuery);
          if(storeNum <= 0){
             System.out.println("You don't manage this store.");
             return;
          }
-         System.out.print("\tWhich product do you want to edit? ");
-         //Switch case later
-         String productName = in.readLine();
-         System.out.print("\tWhat do you want to edit? ");
-         //Switch case later
-         String columnToEdit = in.readLine();
-         System.out.print("\tWhat do you want to change it to? ");
-         String newValue = in.readLine();
-         String updateQuery = "";
-         String newUpdate = String.format("SELECT MAX(updatenumber) FROM PRODUCTUPDATES");
-         List<List<String> > updates = esql.executeQueryAndReturnResult(newUpdate);
-         int updateNum = Integer.parseInt(updates.get(0).get(0));
-         updateNum += 1;
-         if(columnToEdit == "productname"){
-            updateQuery = String.format("UPDATE PRODUCT SET productname = '%s' WHERE productname = '%s' AND storeid = %s", newValue, productName, storeID);
+         // collect every edit first so they can be applied in one transaction
+         Map<String, ProductEdit> edits = new LinkedHashMap<String, ProductEdit>();
+         while(true){
+            System.out.print("\tWhich product do you want to edit? (blank to finish) ");
+            String productName = in.readLine().trim();
+            if(productName.isEmpty()){
+               break;
+            }
+            ProductEdit edit = edits.get(productName);
+            if(edit == null){
+               edit = snapshotProduct(esql, storeID, productName);
+               if(edit == null){
+                  System.out.println(String.format("Product '%s' not found in store %s.", productName, storeID));
+                  continue;
+               }
+               System.out.println("\tCurrently " + edit.currentUnits + " units at " + edit.currentPrice + " per unit.");
+            }
+            System.out.print("\tWhat do you want to edit? (productname, numberofunits, priceperunit) ");
+            String columnToEdit = in.readLine().trim().toLowerCase();
+            System.out.print("\tWhat do you want to change it to? ");
+            String newValue = in.readLine().trim();
+            try{
+               if(columnToEdit.equals("productname")){
+                  String clash = findRenameClash(esql, storeID, edits.values(), productName, newValue);
+                  if(clash != null){
+                     System.out.println(clash);
+                     continue;
+                  }
+                  edit.newName = newValue;
+               }
+               else if(columnToEdit.equals("numberofunits")){
+                  int units = Integer.parseInt(newValue);
+                  if(units < 0){
+                     System.out.println("Invalid value: " + newValue);
+                     continue;
+                  }
+                  edit.numberOfUnits = units;
+               }
+               else if(columnToEdit.equals("priceperunit")){
+                  double price = Double.parseDouble(newValue);
+                  if(price < 0 || Double.isNaN(price) || Double.isInfinite(price)){
+                     System.out.println("Invalid value: " + newValue);
+                     continue;
+                  }
+                  edit.pricePerUnit = price;
+               }
+               else{
+                  System.out.println("Unknown field: " + columnToEdit);
+                  continue;
+               }
+            } catch(NumberFormatException e){
+               System.out.println("Invalid value: " + newValue);
+               continue;
+            }
+            edits.put(productName, edit);
          }
-         else{
-            updateQuery = String.format("UPDATE PRODUCT SET %s = %s WHERE productname = '%s' AND storeid = %s", columnToEdit, newValue, productName, storeID);
+         List<ProductEdit> pending = new ArrayList<ProductEdit>(edits.values());
+         while(!pending.isEmpty()){
+            List<ProductEdit> conflicts = applyProductEdits(esql, Integer.parseInt(userID), storeID, pending);
+            if(conflicts.isEmpty()){
+               System.out.println(pending.size() + " product(s) updated.");
+               return;
+            }
+            // nothing was written; let the manager decide on each product that moved
+            System.out.println("These products were changed by another session after you entered your edits:");
+            for(ProductEdit edit : conflicts){
+               ProductEdit current = snapshotProduct(esql, storeID, edit.productName);
+               if(current == null){
+                  System.out.println("\t" + edit.productName + " no longer exists, dropping your edit.");
+                  pending.remove(edit);
+                  continue;
+               }
+               System.out.println("\t" + edit.productName + " now has " + current.currentUnits + " units at " + current.currentPrice + " per unit. Your edit: " + describeEdit(edit));
+               System.out.print("\tApply your edit anyway? (y/n) ");
+               if(!in.readLine().trim().equalsIgnoreCase("y")){
+                  pending.remove(edit);
+                  continue;
+               }
+               edit.version = current.version;
+               edit.currentUnits = current.currentUnits;
+               edit.currentPrice = current.currentPrice;
+               // the other session may have taken the new name in the meantime
+               if(edit.newName != null){
+                  String clash = findRenameClash(esql, storeID, pending, edit.productName, edit.newName);
+                  if(clash != null){
+                     System.out.println(clash + " Dropping the rename of " + edit.productName + ".");
+                     edit.newName = null;
+                     if(edit.numberOfUnits == null && edit.pricePerUnit == null){
+                        pending.remove(edit);
+                     }
+                  }
+               }
+            }
          }
-         LocalDateTime datetime = LocalDateTime.now();
-         DateTimeFormatter formatterDate = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-         String formattedDate = datetime.format(formatterDate);
-         String addToUpdates = String.format("INSERT INTO PRODUCTUPDATES(updatenumber, managerid, storeid, productname, updatedon) VALUES(%s, %s, %s, '%s', '%s')", updateNum, userID, storeID, productName, formattedDate);
-         esql.executeUpdate(addToUpdates);
-         //System.out.println(updateQuery);
-         esql.executeUpdate(updateQuery);
+         System.out.println("No changes were applied.");
       } catch(Exception e){
          System.err.println(e.getMessage());
       }
    }
+
+   /*
+    * Reads the current state of one product of a store
+    * @return a ProductEdit with no changes yet, or null if the product does not exist
+    **/
+   public static ProductEdit snapshotProduct(Amazon esql, int storeID, String productName) throws SQLException {
+      PreparedStatement stmt = esql.prepareStatement("SELECT numberofunits, priceperunit, version FROM product WHERE storeid = ? AND productname = ?");
+      try{
+         stmt.setInt(1, storeID);
+         stmt.setString(2, productName);
+         ResultSet rs = stmt.executeQuery();
+         if(!rs.next()){
+            return null;
+         }
+         ProductEdit edit = new ProductEdit();
+         edit.productName = productName;
+         edit.currentUnits = rs.getInt(1);
+         edit.currentPrice = rs.getDouble(2);
+         edit.version = rs.getInt(3);
+         return edit;
+      } finally{
+         stmt.close();
+      }
+   }
+
+   /*
+    * Checks that renaming a product to newName cannot collide with another
+    * product of the store or with another rename in the same batch
+    * @return a message describing the clash, or null if the rename is safe
+    **/
+   public static String findRenameClash(Amazon esql, int storeID, Collection<ProductEdit> edits, String productName, String newName) throws SQLException {
+      if(newName.isEmpty() || newName.equals(productName)){
+         return "Invalid product name: " + newName;
+      }
+      if(newName.length() > MAX_PRODUCT_NAME_LENGTH){
+         return "Product names are limited to " + MAX_PRODUCT_NAME_LENGTH + " characters: " + newName;
+      }
+      for(ProductEdit other : edits){
+         if(!other.productName.equals(productName) && newName.equals(other.newName)){
+            return String.format("Product '%s' is already being renamed to '%s' in this batch.", other.productName, newName);
+         }
+      }
+      // also covers edits in this batch, since those products must exist
+      if(snapshotProduct(esql, storeID, newName) != null){
+         return String.format("Product '%s' already exists in store %s.", newName, storeID);
+      }
+      return null;
+   }
+
+   /*
+    * Formats the pending changes of an edit for display
+    **/
+   public static String describeEdit(ProductEdit edit) {
+      List<String> changes = new ArrayList<String>();
+      if(edit.newName != null) changes.add("productname = " + edit.newName);
+      if(edit.numberOfUnits != null) changes.add("numberofunits = " + edit.numberOfUnits);
+      if(edit.pricePerUnit != null) changes.add("priceperunit = " + edit.pricePerUnit);
+      return String.join(", ", changes);
+   }
+
+   /*
+    * Applies all edits to a store's products in a single transaction, using one
+    * UPDATE and one INSERT regardless of the number of edits. Each row is only
+    * written if its version still matches the one captured when the manager
+    * picked the product, and every edit gets one ProductUpdates entry.
+    * @return edits whose product changed since it was picked; if any, the
+    *         whole transaction has been rolled back
+    **/
+   public static List<ProductEdit> applyProductEdits(Amazon esql, int managerID, int storeID, List<ProductEdit> edits) throws SQLException {
+      PreparedStatement updateStmt = null;
+      PreparedStatement auditStmt = null;
+      esql.beginTransaction();
+      try{
+         List<String> rows = new ArrayList<String>();
+         for(int i = 0; i < edits.size(); i++){
+            rows.add("(?::text, ?::text, ?::integer, ?::float8, ?::integer)");
+         }
+         updateStmt = esql.prepareStatement("UPDATE product p SET productname = COALESCE(v.newname, p.productname), numberofunits = COALESCE(v.units, p.numberofunits), priceperunit = COALESCE(v.price, p.priceperunit), version = p.version + 1 FROM (VALUES " + String.join(", ", rows) + ") v(oldname, newname, units, price, ver) WHERE p.storeid = ? AND p.productname = v.oldname AND p.version = v.ver RETURNING v.oldname");
+         int param = 1;
+         for(ProductEdit edit : edits){
+            updateStmt.setString(param++, edit.productName);
+            if(edit.newName != null) updateStmt.setString(param++, edit.newName);
+            else updateStmt.setNull(param++, Types.VARCHAR);
+            if(edit.numberOfUnits != null) updateStmt.setInt(param++, edit.numberOfUnits);
+            else updateStmt.setNull(param++, Types.INTEGER);
+            if(edit.pricePerUnit != null) updateStmt.setDouble(param++, edit.pricePerUnit);
+            else updateStmt.setNull(param++, Types.DOUBLE);
+            updateStmt.setInt(param++, edit.version);
+         }
+         updateStmt.setInt(param, storeID);
+         ResultSet rs = updateStmt.executeQuery();
+         Set<String> updated = new HashSet<String>();
+         while(rs.next()){
+            updated.add(rs.getString(1));
+         }
+         List<ProductEdit> conflicts = new ArrayList<ProductEdit>();
+         for(ProductEdit edit : edits){
+            if(!updated.contains(edit.productName)){
+               conflicts.add(edit);
+            }
+         }
+         if(!conflicts.isEmpty()){
+            esql.rollbackTransaction();
+            return conflicts;
+         }
+
+         // renames cascade to existing child rows, new entries use the new name
+         rows.clear();
+         for(int i = 0; i < edits.size(); i++){
+            rows.add("(?, ?, ?, ?)");
+         }
+         auditStmt = esql.prepareStatement("INSERT INTO productupdates(managerid, storeid, productname, updatedon) VALUES " + String.join(", ", rows));
+         Timestamp updatedOn = Timestamp.valueOf(LocalDateTime.now().withNano(0));
+         param = 1;
+         for(ProductEdit edit : edits){
+            auditStmt.setInt(param++, managerID);
+            auditStmt.setInt(param++, storeID);
+            auditStmt.setString(param++, edit.newName != null ? edit.newName : edit.productName);
+            auditStmt.setTimestamp(param++, updatedOn);
+         }
+         auditStmt.executeUpdate();
+         esql.commitTransaction();
+         return conflicts;
+      } catch(SQLException e){
+         esql.rollbackTransaction();
+         throw e;
+      } finally{
+         if(updateStmt != null) updateStmt.close();
+         if(auditStmt != null) auditStmt.close();
+      }
+   }
    public static void viewRecentUpdates(Amazon esql, String authorisedUser) {
       try{
          String getUserIDQuery = String.format ("SELECT u.UserID FROM Users u WHERE u.name = '%s'", authorisedUser);
@@ -646,7 +922,7 @@ public class Amazon {
          //System.out.println(getOrderNum);
          List<List<String> > getOrderNumList = esql.executeQueryAndReturnResult(getOrderNum);
          int newOrderNum = Integer.parseInt(getOrderNumList.get(0).get(0)) + 1;
-         String updateProduct = String.format("UPDATE PRODUCT SET numberofunits = %s WHERE storeid = %s AND productname = '%s'", newInventory, storeID, productName);
+         String updateProduct = String.format("UPDATE PRODUCT SET numberofunits = %s, version = version + 1 WHERE storeid = %s AND productname = '%s'", newInventory, storeID, productName);
          String addSupplyOrder = String.format("INSERT INTO productsupplyrequests(requestnumber, managerid, warehouseid, storeid, productname, unitsrequested) VALUES(%s, %s, %s, %s, '%s', %s)", newOrderNum, userID, warehouseID, storeID, productName, numUnits);
          //System.out.println(updateProduct);
          esql.executeUpdate(updateProduct);
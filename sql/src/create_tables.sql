@@ -30,6 +30,7 @@ CREATE TABLE Product ( storeID integer NOT NULL,
                        productName char(30) NOT NULL,
                        numberOfUnits integer NOT NULL,
                        pricePerUnit float NOT NULL,
+                       version integer NOT NULL DEFAULT 0,   -- bumped on every edit, used for optimistic concurrency
                        PRIMARY KEY(storeID, productName), 
                        FOREIGN KEY(storeID) REFERENCES Store(storeID)
 		               ON DELETE CASCADE
@@ -50,7 +51,7 @@ CREATE TABLE Orders (
                      orderTime timestamp NOT NULL,
                      PRIMARY KEY(orderNumber),
                      FOREIGN KEY(customerID) REFERENCES Users(userID),
-                     FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+                     FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName) ON UPDATE CASCADE
 );
 
 CREATE TABLE ProductSupplyRequests (  
@@ -63,7 +64,7 @@ CREATE TABLE ProductSupplyRequests (
                                PRIMARY KEY(requestNumber),
 							   FOREIGN KEY(managerID) REFERENCES Users(userID), 
                                FOREIGN KEY(warehouseID) REFERENCES Warehouse(warehouseID),
-                               FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+                               FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName) ON UPDATE CASCADE
 );
 
 CREATE TABLE ProductUpdates (
@@ -74,5 +75,5 @@ CREATE TABLE ProductUpdates (
                             updatedOn timestamp NOT NULL,
                         	PRIMARY KEY(updateNumber),
                         	FOREIGN KEY(managerID) REFERENCES Users(userID),
-                        	FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+                        	FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName) ON UPDATE CASCADE
 );
@@ -7,7 +7,7 @@ COPY Store
 FROM '/home/csmajs/alian049/cs166_project_phase_3/data/stores.csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY Product
+COPY Product(storeID, productName, numberOfUnits, pricePerUnit)
 FROM '/home/csmajs/alian049/cs166_project_phase_3/data/products.csv'
 WITH DELIMITER ',' CSV HEADER;
 